@@ -0,0 +1,228 @@
+package com.mycompany.imagej;
+
+import ij.process.ImageProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Local disk cache of generated background (noise) images.
+ *
+ * Entries are keyed by a hash of the input slice's pixels together with every
+ * parameter that affects the background, so a parameter sweep that revisits a
+ * setting reuses earlier results instead of re-running the Savitzky-Golay
+ * stage. The cache is bounded by a byte budget and evicts the least recently
+ * used entries first; recency is tracked through the files' modification time.
+ *
+ * LRU only helps when a whole sweep step fits: a stack larger than the budget
+ * would evict each entry before the next pass reaches it. Callers therefore
+ * check {@link #canHold(long)} and skip storing runs that cannot fit.
+ */
+public class BackgroundCache {
+
+	/** System property overriding the cache directory. */
+	public static final String DIR_PROPERTY = "intensify3d.cache.dir";
+	/** System property overriding the cache size cap in bytes; 0 disables the cache. */
+	public static final String BUDGET_PROPERTY = "intensify3d.cache.bytes";
+
+	private static final long DEFAULT_BUDGET = 2L << 30; // 2 GB
+	private static final String SUFFIX = ".tif";
+
+	private static BackgroundCache shared;
+
+	private final File directory;
+	private final long budgetBytes;
+
+	private long hits;
+	private long misses;
+
+	public BackgroundCache(File directory, long budgetBytes) {
+		this.directory = directory;
+		this.budgetBytes = budgetBytes;
+	}
+
+	/**
+	 * Returns the cache shared by the plugin, located in
+	 * {@code ~/.intensify3d/background-cache} unless configured otherwise.
+	 */
+	public static synchronized BackgroundCache getShared() {
+		if (shared == null) {
+			File defaultDir = new File(System.getProperty("user.home"), ".intensify3d" + File.separator + "background-cache");
+			File dir = new File(System.getProperty(DIR_PROPERTY, defaultDir.getPath()));
+			shared = new BackgroundCache(dir, Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET));
+		}
+		return shared;
+	}
+
+	public boolean isEnabled() {
+		return budgetBytes > 0;
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	/** Whether a run producing about {@code bytes} of backgrounds fits in the cache at once. */
+	public boolean canHold(long bytes) {
+		return isEnabled() && bytes <= budgetBytes;
+	}
+
+	/**
+	 * Builds the cache key of a slice: a SHA-256 over its dimensions, type and
+	 * pixels followed by the given parameters.
+	 */
+	public static String key(ImageProcessor ip, Object... parameters) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+		chunk.putInt(ip.getWidth()).putInt(ip.getHeight()).putInt(ip.getBitDepth());
+		digestPixels(digest, chunk, ip.getPixels());
+
+		for (Object parameter : parameters) {
+			digest.update(("|" + parameter).getBytes(StandardCharsets.UTF_8));
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Copies the cached background for {@code key} to {@code target}.
+	 *
+	 * @return true on a hit, false if the key is not cached
+	 */
+	public synchronized boolean fetch(String key, File target) {
+		if (!isEnabled()) return false;
+
+		File entry = entryFile(key);
+		if (!entry.isFile()) {
+			misses++;
+			return false;
+		}
+		try {
+			Files.copy(entry.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.err.println("Background cache read failed for " + entry.getName() + ": " + e.getMessage());
+			misses++;
+			return false;
+		}
+		entry.setLastModified(System.currentTimeMillis());
+		hits++;
+		return true;
+	}
+
+	/** Stores a copy of {@code source} under {@code key} and evicts old entries if over budget. */
+	public synchronized void store(String key, File source) {
+		if (!isEnabled() || !source.isFile()) return;
+		if (!directory.exists() && !directory.mkdirs()) {
+			System.err.println("Cannot create background cache directory: " + directory);
+			return;
+		}
+
+		File entry = entryFile(key);
+		File temp = new File(directory, key + ".tmp");
+		try {
+			Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.err.println("Background cache write failed for " + source.getName() + ": " + e.getMessage());
+			temp.delete();
+			return;
+		}
+		evict();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/** Total size of all cached entries in bytes. */
+	public synchronized long getSizeBytes() {
+		long size = 0;
+		for (File entry : listEntries()) size += entry.length();
+		return size;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BackgroundCache | Hits: " + hits +
+				" | Misses: " + misses +
+				" | Size: " + (getSizeBytes() >> 20) + " MB" +
+				" | Budget: " + (budgetBytes >> 20) + " MB" +
+				" | Dir: " + directory;
+	}
+
+	private File entryFile(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+
+	private File[] listEntries() {
+		File[] entries = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		return entries == null ? new File[0] : entries;
+	}
+
+	/** Deletes least recently used entries until the cache fits its budget. */
+	private void evict() {
+		File[] entries = listEntries();
+		long size = 0;
+		for (File entry : entries) size += entry.length();
+		if (size <= budgetBytes) return;
+
+		Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+		for (File entry : entries) {
+			if (size <= budgetBytes) break;
+			long length = entry.length();
+			if (entry.delete()) size -= length;
+		}
+	}
+
+	private static void digestPixels(MessageDigest digest, ByteBuffer chunk, Object pixels) {
+		if (pixels instanceof byte[]) {
+			flush(digest, chunk);
+			digest.update((byte[]) pixels);
+		} else if (pixels instanceof short[]) {
+			for (short value : (short[]) pixels) {
+				if (chunk.remaining() < 2) flush(digest, chunk);
+				chunk.putShort(value);
+			}
+		} else if (pixels instanceof float[]) {
+			for (float value : (float[]) pixels) {
+				if (chunk.remaining() < 4) flush(digest, chunk);
+				chunk.putFloat(value);
+			}
+		} else if (pixels instanceof int[]) {
+			for (int value : (int[]) pixels) {
+				if (chunk.remaining() < 4) flush(digest, chunk);
+				chunk.putInt(value);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported image type: " + pixels.getClass().getSimpleName());
+		}
+		flush(digest, chunk);
+	}
+
+	private static void flush(MessageDigest digest, ByteBuffer chunk) {
+		digest.update(chunk.array(), 0, chunk.position());
+		chunk.clear();
+	}
+}
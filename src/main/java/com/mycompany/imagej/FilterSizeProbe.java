@@ -0,0 +1,279 @@
+package com.mycompany.imagej;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ImageStatistics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recommends a Savitzky-Golay filter size from a quick look at the stack.
+ *
+ * A few slices are downsampled, bright pixels above the MNI are replaced by the
+ * median (as in noise generation), and each candidate window is approximated by
+ * a box filter at the downsampled scale. The variance removed by smoothing
+ * (image minus smoothed image) grows while the window still swallows cells and
+ * other structure, levels off once only the illumination field is left, and
+ * grows again when the window starts eating into the field itself. The smallest
+ * window at the start of that plateau is recommended, since anything larger
+ * costs quadratically more without changing the estimated background.
+ *
+ * Runtime predictions come from timing the real filter on a small patch.
+ */
+public class FilterSizeProbe {
+
+	private static final int MAX_SAMPLE_SLICES = 5;
+	private static final int PROBE_SIZE = 256;        // Shortest side of a downsampled slice
+	private static final double FLAT_TOLERANCE = 0.05; // Relative variance change treated as flat
+	private static final double SIZE_STEP = 1.5;      // Ratio between consecutive candidate sizes
+
+	/** One candidate window size and what the probe measured for it. */
+	public static class Candidate {
+		public final int size;
+		/** Fraction of slice variance removed by smoothing, or NaN if below probe resolution. */
+		public final double removedVariance;
+		public final double secondsPerSlice;
+		final int probeWindow;
+
+		Candidate(int size, double removedVariance, double secondsPerSlice, int probeWindow) {
+			this.size = size;
+			this.removedVariance = removedVariance;
+			this.secondsPerSlice = secondsPerSlice;
+			this.probeWindow = probeWindow;
+		}
+	}
+
+	/** Outcome of a probe: all candidates and the recommended size, 0 if nothing could be measured. */
+	public static class Result {
+		public final List<Candidate> candidates;
+		public final int recommendedSize;
+		public final int maxSize;
+		public final int sliceCount;
+
+		Result(List<Candidate> candidates, int recommendedSize, int maxSize, int sliceCount) {
+			this.candidates = candidates;
+			this.recommendedSize = recommendedSize;
+			this.maxSize = maxSize;
+			this.sliceCount = sliceCount;
+		}
+
+		public boolean hasRecommendation() {
+			return recommendedSize > 0;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder();
+			text.append(String.format("%8s %12s %14s %14s%n", "Size", "Removed", "s / slice", "s / stack"));
+			for (Candidate c : candidates) {
+				String removed = Double.isNaN(c.removedVariance) ? "n/a" : String.format("%.1f%%", c.removedVariance * 100);
+				text.append(String.format("%8d %12s %14.2f %14.1f%s%n", c.size, removed,
+						c.secondsPerSlice, c.secondsPerSlice * sliceCount,
+						c.size == recommendedSize ? "  <- recommended" : ""));
+			}
+			if (!hasRecommendation()) {
+				text.append(String.format("%nNo recommendation: the sampled slices were flat, could not be opened,%n" +
+						"or are too small to resolve any candidate. The filter size was left unchanged.%n"));
+			}
+			return text.toString();
+		}
+	}
+
+	/**
+	 * Probes the given slices and recommends a filter size between 3 and half
+	 * the shortest slice dimension.
+	 */
+	public static Result probe(File[] slices, int MNIValue, JobScheduler.Job job) {
+		if (slices == null || slices.length == 0) {
+			throw new IllegalStateException("No TIFF images found!");
+		}
+
+		int sampleCount = Math.min(MAX_SAMPLE_SLICES, slices.length);
+		job.setTotal(sampleCount + 1);
+
+		// Same bounds as the filter size spinner
+		ImagePlus first = IJ.openImage(slices[0].getAbsolutePath());
+		if (first == null) throw new IllegalStateException("Failed to open " + slices[0].getName());
+		int width = first.getWidth();
+		int height = first.getHeight();
+		int maxSize = Math.min(width, height) / 2;
+		if (maxSize % 2 == 0) maxSize--;
+		maxSize = Math.max(3, maxSize);
+
+		List<Integer> sizes = candidateSizes(maxSize);
+		double nanosPerTap = measureNanosPerTap();
+		job.advance(0);
+
+		double scale = Math.max(1.0, Math.min(width, height) / (double) PROBE_SIZE);
+		double[] removed = new double[sizes.size()];
+		int probed = 0;
+		for (int s = 0; s < sampleCount; s++) {
+			job.checkCancelled();
+			File slice = slices[(int) ((s + 0.5) * slices.length / sampleCount)];
+			ImagePlus image = IJ.openImage(slice.getAbsolutePath());
+			if (image == null) {
+				job.advance(0);
+				continue;
+			}
+
+			FloatProcessor small = downsample(image.getProcessor(), scale, MNIValue);
+			double variance = variance((float[]) small.getPixels());
+			if (variance > 0) {
+				float[] pixels = (float[]) small.getPixels();
+				for (int i = 0; i < sizes.size(); i++) {
+					int radius = windowAtProbeScale(sizes.get(i), scale) / 2;
+					if (radius == 0) continue;
+					float[] residual = boxSmooth(small, radius);
+					for (int p = 0; p < residual.length; p++) residual[p] = pixels[p] - residual[p];
+					removed[i] += variance(residual) / variance;
+				}
+				probed++;
+			}
+			job.advance((long) image.getWidth() * image.getHeight());
+		}
+
+		List<Candidate> candidates = new ArrayList<>();
+		for (int i = 0; i < sizes.size(); i++) {
+			int size = sizes.get(i);
+			double seconds = (double) width * height * size * size * nanosPerTap / 1e9;
+			int probeWindow = windowAtProbeScale(size, scale);
+			boolean resolved = probed > 0 && probeWindow >= 3;
+			candidates.add(new Candidate(size, resolved ? removed[i] / probed : Double.NaN, seconds, probeWindow));
+		}
+
+		return new Result(candidates, recommend(candidates), maxSize, slices.length);
+	}
+
+	/** Odd sizes from 3 to {@code maxSize}, growing geometrically. */
+	private static List<Integer> candidateSizes(int maxSize) {
+		List<Integer> sizes = new ArrayList<>();
+		double size = 3;
+		while (true) {
+			int odd = Math.min(maxSize, (int) Math.round(size) | 1);
+			if (sizes.isEmpty() || odd > sizes.get(sizes.size() - 1)) sizes.add(odd);
+			if (odd >= maxSize) break;
+			size *= SIZE_STEP;
+		}
+		return sizes;
+	}
+
+	private static int windowAtProbeScale(int size, double scale) {
+		return Math.max(1, (int) Math.round(size / scale)) | 1;
+	}
+
+	/**
+	 * Smallest size after which the removed variance stops growing noticeably.
+	 * Falls back to the largest size if the curve never levels off, and returns
+	 * 0 if no candidate could be measured at all.
+	 */
+	private static int recommend(List<Candidate> candidates) {
+		boolean measured = false;
+		for (Candidate c : candidates) {
+			if (!Double.isNaN(c.removedVariance)) measured = true;
+		}
+		if (!measured) return 0;
+
+		for (int i = 0; i + 1 < candidates.size(); i++) {
+			// Sizes that map to the same window at probe scale cannot be told apart; compare with the next distinct one
+			int j = i + 1;
+			while (j < candidates.size() && candidates.get(j).probeWindow == candidates.get(i).probeWindow) j++;
+			if (j == candidates.size()) break;
+
+			double current = candidates.get(i).removedVariance;
+			double next = candidates.get(j).removedVariance;
+			if (Double.isNaN(current) || next <= 0) continue;
+			if ((next - current) / next < FLAT_TOLERANCE) {
+				return candidates.get(i).size;
+			}
+		}
+		return candidates.get(candidates.size() - 1).size;
+	}
+
+	/**
+	 * Times the real filter on a small patch and returns nanoseconds per kernel
+	 * tap. The best of several runs after a warm-up is used so the figure
+	 * reflects compiled code rather than the interpreter.
+	 */
+	private static double measureNanosPerTap() {
+		int patch = 128;
+		int window = 15;
+		FloatProcessor fp = new FloatProcessor(patch, patch);
+		float[] pixels = (float[]) fp.getPixels();
+		for (int i = 0; i < pixels.length; i++) pixels[i] = i % 97;
+
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < 8; run++) {
+			ImageProcessor copy = fp.duplicate();
+			long start = System.nanoTime();
+			SavitzkyGolay2D.applyFilter(copy, window);
+			long elapsed = System.nanoTime() - start;
+			if (run >= 3) best = Math.min(best, elapsed); // First runs are warm-up
+		}
+		return best / ((double) patch * patch * window * window);
+	}
+
+	/** Downsamples by {@code scale} and replaces pixels above the MNI with the median. */
+	private static FloatProcessor downsample(ImageProcessor ip, double scale, int MNIValue) {
+		int w = Math.max(1, (int) Math.round(ip.getWidth() / scale));
+		int h = Math.max(1, (int) Math.round(ip.getHeight() / scale));
+
+		ImageProcessor source = ip;
+		if (MNIValue > 0) {
+			source = ip.duplicate();
+			int median = (int) ImageStatistics.getStatistics(source, ImageStatistics.MEDIAN, null).median;
+			int pixelCount = source.getWidth() * source.getHeight();
+			for (int i = 0; i < pixelCount; i++) {
+				if (source.getf(i) > MNIValue) source.setf(i, median);
+			}
+		}
+
+		ImageProcessor resized = (w == ip.getWidth() && h == ip.getHeight()) ? source : source.resize(w, h, true);
+		return resized.convertToFloatProcessor();
+	}
+
+	/** Mean over a (2r+1)x(2r+1) box, clipped at the image border, via a summed-area table. */
+	private static float[] boxSmooth(FloatProcessor fp, int radius) {
+		int w = fp.getWidth();
+		int h = fp.getHeight();
+		float[] pixels = (float[]) fp.getPixels();
+		if (radius == 0) return pixels;
+
+		double[] sums = new double[(w + 1) * (h + 1)];
+		for (int y = 0; y < h; y++) {
+			double row = 0;
+			for (int x = 0; x < w; x++) {
+				row += pixels[y * w + x];
+				sums[(y + 1) * (w + 1) + x + 1] = sums[y * (w + 1) + x + 1] + row;
+			}
+		}
+
+		float[] smoothed = new float[w * h];
+		for (int y = 0; y < h; y++) {
+			int y0 = Math.max(0, y - radius);
+			int y1 = Math.min(h, y + radius + 1);
+			for (int x = 0; x < w; x++) {
+				int x0 = Math.max(0, x - radius);
+				int x1 = Math.min(w, x + radius + 1);
+				double sum = sums[y1 * (w + 1) + x1] - sums[y0 * (w + 1) + x1]
+						- sums[y1 * (w + 1) + x0] + sums[y0 * (w + 1) + x0];
+				smoothed[y * w + x] = (float) (sum / ((y1 - y0) * (x1 - x0)));
+			}
+		}
+		return smoothed;
+	}
+
+	private static double variance(float[] values) {
+		double sum = 0;
+		double sumSq = 0;
+		for (float v : values) {
+			sum += v;
+			sumSq += (double) v * v;
+		}
+		double mean = sum / values.length;
+		return Math.max(0, sumSq / values.length - mean * mean);
+	}
+}
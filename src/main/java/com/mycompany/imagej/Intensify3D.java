@@ -14,6 +14,8 @@ import java.util.*;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.FilenameFilter;
 import javax.swing.JProgressBar;
@@ -32,6 +34,12 @@ public class Intensify3D implements PlugIn {
 	private JSpinner filterSizeSpinner;      // Spinner to select the Savitzky-Golay filter size.
 	private JLabel quantileLabel; // GUI label for displaying quantile
 
+	// Part of every background cache key; bump whenever processImage produces different output
+	private static final int NOISE_ALGORITHM_VERSION = 1;
+
+	private final JobScheduler scheduler = JobScheduler.getShared(); // Shared by all plugin windows
+	private JobScheduler.Listener jobListener; // Shows progress of the jobs submitted from this window
+
 	public void showDialog() {
 		JFrame frame = new JFrame("Intensify3D - Image Normalization");
 		frame.setSize(600, 450);
@@ -86,25 +94,151 @@ public class Intensify3D implements PlugIn {
 		JLabel statusLabel = new JLabel("Status: Waiting...");   // Status label to display messages
 		frame.add(statusLabel);                                 // Add status label to the frame
 
+		// Background jobs run one at a time per stack; progress reaches the EDT in coalesced updates
+		jobListener = (job, state) -> showJobProgress(job, state, progressBar, statusLabel);
+		frame.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				scheduler.cancel(jobListener);                  // Other windows keep their jobs
+			}
+		});
+
 		// --- Row 6 & 7: Execute Buttons ---
 		JButton executeButton = new JButton("Generate Noise Images"); // Button to start noise image generation
-		executeButton.addActionListener(e -> new Thread(() -> {      // Run in a separate thread to prevent GUI freezing
-			statusLabel.setText("Status: Processing Noise Images..."); // Update status label
-			generateNoiseImages(progressBar);                           // Call method to generate noise images
-			statusLabel.setText("Status: Noise Images Generated.");      // Update status label
-		}).start());
+		executeButton.addActionListener(e -> {
+			File directory = getStackDirectory();
+			if (directory == null) return;
+			int filterSize = (int) filterSizeSpinner.getValue();          // Read GUI values on the EDT, before the job starts
+			int MNIValue = (int) MNISpinner.getValue();
+			statusLabel.setText("Status: Noise Images queued...");
+			scheduler.submit("Noise Images", directory, jobListener, job -> generateNoiseImages(job, directory, filterSize, MNIValue));
+		});
 		frame.add(executeButton);                                       // Add execute button to the frame
 
 		JButton normalizeButton = new JButton("Normalize Images");      // Button to start image normalization
-		normalizeButton.addActionListener(e -> new Thread(() -> {        // Run in a separate thread
-			statusLabel.setText("Status: Normalizing Images...");      // Update status label
-			generateNormalizedImages(progressBar);                      // Call method to normalize images
-			statusLabel.setText("Status: Normalization Complete.");    // Update status label
-		}).start());
+		normalizeButton.addActionListener(e -> {
+			File directory = getStackDirectory();
+			if (directory == null) return;
+			statusLabel.setText("Status: Normalization queued...");
+			scheduler.submit("Normalization", directory, jobListener, job -> generateNormalizedImages(job, directory));
+		});
 		frame.add(normalizeButton);                                     // Add normalize button to the frame
 
+		JButton cancelButton = new JButton("Cancel");                   // Cancels running and queued jobs of this stack
+		cancelButton.addActionListener(e -> {
+			File directory = getStackDirectory();
+			if (directory != null) scheduler.cancel(directory);
+		});
+		frame.add(cancelButton);
+
+		JButton historyButton = new JButton("Job History");             // Lists finished jobs with their throughput
+		historyButton.addActionListener(this::showJobHistory);
+		frame.add(historyButton);
+
+		JButton autoFilterButton = new JButton("Auto Filter Size");    // Probes a few slices to recommend a filter size
+		autoFilterButton.addActionListener(e -> {
+			File directory = getStackDirectory();
+			if (directory == null) return;
+			int MNIValue = (int) MNISpinner.getValue();
+			statusLabel.setText("Status: Filter size probe queued...");
+			scheduler.submit("Filter Size Probe", directory, jobListener, job -> probeFilterSize(job, directory, MNIValue));
+		});
+		frame.add(autoFilterButton);
+
 		frame.setVisible(true);                                         // Make the frame visible
 	}
+
+	private void probeFilterSize(JobScheduler.Job job, File directory, int MNIValue) {
+		File[] imageFiles = directory.listFiles((dir, name) -> name.toLowerCase().endsWith(".tif") || name.toLowerCase().endsWith(".tiff"));
+		if (imageFiles != null) Arrays.sort(imageFiles, Comparator.comparing(File::getName));
+
+		FilterSizeProbe.Result result = FilterSizeProbe.probe(imageFiles, MNIValue, job);
+		System.out.println("Filter size probe | Stack: " + directory + "\n" + result);
+
+		SwingUtilities.invokeLater(() -> {
+			if (result.hasRecommendation()) {
+				filterSizeSpinner.setModel(new SpinnerNumberModel(result.recommendedSize, 3, result.maxSize, 2)); // Step by 2 to keep it odd
+			}
+			JTextArea area = new JTextArea(result.toString());
+			area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+			area.setEditable(false);
+			String title = result.hasRecommendation()
+					? "Recommended Filter Size: " + result.recommendedSize
+					: "No Filter Size Recommendation";
+			JOptionPane.showMessageDialog(null, new JScrollPane(area), title,
+					result.hasRecommendation() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+		});
+	}
+
+	private File getStackDirectory() {
+		if (stackFolderField.getText().isEmpty()) {
+			JOptionPane.showMessageDialog(null, "No directory selected!", "Error", JOptionPane.ERROR_MESSAGE);
+			return null;
+		}
+		return new File(stackFolderField.getText());
+	}
+
+	/**
+	 * Called on the EDT by the scheduler at most once per interval for each active job.
+	 * Dialogs are posted separately so a pending OK click never stalls the shared timer.
+	 */
+	private void showJobProgress(JobScheduler.Job job, JobScheduler.State state, JProgressBar progressBar, JLabel statusLabel) {
+		switch (state) {
+			case RUNNING:
+				progressBar.setVisible(true);
+				progressBar.setValue((int) (job.getProgress() * 100));
+				long eta = job.getEtaMillis();
+				statusLabel.setText("Status: " + job.getName() + " " + job.getDone() + "/" + job.getTotal() +
+						(eta >= 0 ? " | ETA " + formatDuration(eta) : ""));
+				break;
+			case DONE:
+				progressBar.setValue(100);
+				progressBar.setVisible(false);
+				statusLabel.setText("Status: " + job.getName() + " complete.");
+				String doneMessage = job.getMessage();
+				if (doneMessage != null) {
+					SwingUtilities.invokeLater(() ->
+							JOptionPane.showMessageDialog(null, doneMessage, "Done", JOptionPane.INFORMATION_MESSAGE));
+				}
+				break;
+			case CANCELLED:
+				progressBar.setVisible(false);
+				statusLabel.setText("Status: " + job.getName() + " cancelled.");
+				break;
+			case FAILED:
+				progressBar.setVisible(false);
+				statusLabel.setText("Status: " + job.getName() + " failed.");
+				String message = job.getError() == null ? null : job.getError().getMessage();
+				String errorMessage = message != null ? message : String.valueOf(job.getError());
+				SwingUtilities.invokeLater(() ->
+						JOptionPane.showMessageDialog(null, errorMessage, "Error", JOptionPane.ERROR_MESSAGE));
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void showJobHistory(ActionEvent e) {
+		java.util.List<JobScheduler.Job> history = scheduler.getHistory();
+		if (history.isEmpty()) {
+			JOptionPane.showMessageDialog(null, "No jobs have finished yet.", "Job History", JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+		StringBuilder text = new StringBuilder();
+		for (JobScheduler.Job job : history) {
+			text.append(job).append('\n');
+		}
+		JTextArea area = new JTextArea(text.toString(), Math.min(history.size(), 15), 80);
+		area.setEditable(false);
+		JOptionPane.showMessageDialog(null, new JScrollPane(area), "Job History", JOptionPane.INFORMATION_MESSAGE);
+	}
+
+	private static String formatDuration(long millis) {
+		long seconds = millis / 1000;
+		if (seconds < 60) return seconds + "s";
+		if (seconds < 3600) return (seconds / 60) + "m " + (seconds % 60) + "s";
+		return (seconds / 3600) + "h " + (seconds % 3600 / 60) + "m";
+	}
 	private void updateFilterSizeBounds() {
 		if (selectedImageFile == null) return;
 
@@ -235,58 +369,79 @@ public class Intensify3D implements PlugIn {
 			}
 		}
 	}
-	public void generateNoiseImages(JProgressBar progressBar) {
-		if (stackFolderField.getText().isEmpty()) {
-			JOptionPane.showMessageDialog(null, "No directory selected!", "Error", JOptionPane.ERROR_MESSAGE);
-			return;
-		}
-
-		File directory = new File(stackFolderField.getText());
+	public void generateNoiseImages(JobScheduler.Job job, File directory, int filterSize, int MNIValue) {
 		File outputDir = new File(directory, "noise_images");
 		if (!outputDir.exists()) outputDir.mkdir();
 
 		File[] imageFiles = directory.listFiles((dir, name) -> name.toLowerCase().endsWith(".tif") || name.toLowerCase().endsWith(".tiff"));
 		if (imageFiles == null || imageFiles.length == 0) {
-			JOptionPane.showMessageDialog(null, "No TIFF images found!", "Error", JOptionPane.ERROR_MESSAGE);
-			return;
+			throw new IllegalStateException("No TIFF images found!");
 		}
 
 		Arrays.sort(imageFiles, Comparator.comparing(File::getName));
-		SwingUtilities.invokeLater(() -> progressBar.setVisible(true));
-		progressBar.setValue(0);
 
 		int totalFiles = imageFiles.length;
-		int filterSize = (int) filterSizeSpinner.getValue();
+		job.setTotal(totalFiles);
+
+		// Backgrounds are the same size as their slices; a stack that cannot fit would only thrash the cache
+		BackgroundCache cache = BackgroundCache.getShared();
+		long stackBytes = 0;
+		for (File imageFile : imageFiles) stackBytes += imageFile.length();
+		boolean storeInCache = cache.canHold(stackBytes);
+		if (cache.isEnabled() && !storeInCache) {
+			System.out.println("BackgroundCache | Not storing this run: stack needs " + (stackBytes >> 20) +
+					" MB, cache holds " + (cache.getBudgetBytes() >> 20) + " MB. Raise " +
+					BackgroundCache.BUDGET_PROPERTY + " to cache it.");
+		}
 
-		for (int i = 0; i < totalFiles; i++) {
-			processImage(imageFiles[i], outputDir, filterSize); // Pass filterSize here
-			updateProgress(progressBar, i, totalFiles);
+		try {
+			for (int i = 0; i < totalFiles; i++) {
+				job.checkCancelled();                            // Stop between slices once cancelled
+				long pixels = processImage(imageFiles[i], outputDir, filterSize, MNIValue, storeInCache, job);
+				job.advance(pixels);
+			}
+		} finally {
+			System.out.println(PlanePool.getShared());
+			PlanePool.getShared().trim();                        // Give idle direct memory back after every run
 		}
+		System.out.println(cache);
 
-		SwingUtilities.invokeLater(() -> {
-			progressBar.setValue(100);
-			JOptionPane.showMessageDialog(null, "Noise images generated successfully!", "Done", JOptionPane.INFORMATION_MESSAGE);
-			progressBar.setVisible(false);
-		});
+		job.setMessage("Noise images generated successfully!");
 	}
 
-	private void processImage(File imageFile, File outputDir, int filterSize) {
+	/** @return number of pixels filtered, or 0 if the image could not be opened or came from the cache */
+	private long processImage(File imageFile, File outputDir, int filterSize, int MNIValue, boolean storeInCache,
+							  JobScheduler.Job job) {
 		ImagePlus image = IJ.openImage(imageFile.getAbsolutePath());
-		if (image == null) return;
+		if (image == null) return 0;
 
 		ImageProcessor ip = image.getProcessor();
+		long pixels = (long) ip.getWidth() * ip.getHeight();
+
+		// Reuse a background computed earlier for the same slice content and parameters
+		BackgroundCache cache = BackgroundCache.getShared();
+		File outputFile = new File(outputDir, "noise_" + imageFile.getName());
+		String cacheKey = null;
+		if (cache.isEnabled()) {
+			cacheKey = BackgroundCache.key(ip, "MNI=" + MNIValue, "filter=" + filterSize, "version=" + NOISE_ALGORITHM_VERSION);
+			if (cache.fetch(cacheKey, outputFile)) {
+				System.out.println("Cached | Image: " + imageFile.getName());
+				return 0; // Copied, not filtered; keeps MP/s in the job history a kernel throughput
+			}
+		}
+
 		printImageStats("Original", imageFile.getName(), ip);
 		// Get original min and max BEFORE any processing
 		double originalMin = ip.getMin();
 		double originalMax = ip.getMax();
 
 		int medianIntensity = computeMedian(ip);
-		int threshold = computeThreshold(ip);
+		int threshold = computeThreshold(ip, MNIValue);
 
 		replaceHighIntensityPixels(ip, threshold, medianIntensity);
 		printImageStats("After Thresholding", imageFile.getName(), ip);
 
-		applySavitzkyGolayFilter(ip, filterSize);
+		applySavitzkyGolayFilter(ip, filterSize, job);
 		printImageStats("After SG Filter", imageFile.getName(), ip);
 
 
@@ -295,6 +450,8 @@ public class Intensify3D implements PlugIn {
 			((ShortProcessor) ip).setMinAndMax(originalMin, originalMax);
 		}
 		saveImage(ip, outputDir, imageFile.getName());
+		if (cacheKey != null && storeInCache) cache.store(cacheKey, outputFile);
+		return pixels;
 	}
 
 	private int computeMedian(ImageProcessor ip) {
@@ -303,10 +460,10 @@ public class Intensify3D implements PlugIn {
 	}
 
 
-	private int computeThreshold(ImageProcessor ip) {
+	private int computeThreshold(ImageProcessor ip, int MNIValue) {
 		int[] pixelValues = samplePixelValues(ip, 10000);
 		Arrays.sort(pixelValues);
-		int referenceQuantile = getReferenceQuantile(ip, (int) MNISpinner.getValue());
+		int referenceQuantile = getReferenceQuantile(ip, MNIValue);
 		int quantileIndex = Math.min((int) (referenceQuantile / 10000.0 * pixelValues.length), pixelValues.length - 1);
 		return pixelValues[quantileIndex];
 	}
@@ -327,11 +484,6 @@ public class Intensify3D implements PlugIn {
 		IJ.saveAsTiff(new ImagePlus(outputFile.getName(), ip), outputFile.getAbsolutePath());
 	}
 
-	private void updateProgress(JProgressBar progressBar, int currentIndex, int totalFiles) {
-		int progress = (int) (((currentIndex + 1) / (double) totalFiles) * 100);
-		SwingUtilities.invokeLater(() -> progressBar.setValue(progress));
-	}
-
 	private void printImageStats(String stage, String imageName, ImageProcessor ip) {
 		ImageStatistics stats = ImageStatistics.getStatistics(ip, ImageStatistics.MEDIAN + ImageStatistics.MIN_MAX, null);
 		System.out.println(stage + " | Image: " + imageName +
@@ -344,7 +496,7 @@ public class Intensify3D implements PlugIn {
 	 * normalization, calling SavitzkyGolay2D.applyFilter, and de-normalization.  It
 	 * operates on the ImageProcessor directly.
 	 */
-	private void applySavitzkyGolayFilter(ImageProcessor ip, int filterSize) {
+	private void applySavitzkyGolayFilter(ImageProcessor ip, int filterSize, JobScheduler.Job job) {
 		// 1. Convert to FloatProcessor
 		FloatProcessor fp = ip.convertToFloatProcessor();
 
@@ -365,7 +517,7 @@ public class Intensify3D implements PlugIn {
 
 
 		// 5. Call the SavitzkyGolay2D filter (which now does padding correctly)
-		SavitzkyGolay2D.applyFilter(fp, filterSize);
+		SavitzkyGolay2D.applyFilter(fp, filterSize, job::isCancelled);
 
 		// 6. Restore original intensity range, accounting for the offset
 		fp.multiply(origMax - origMin + offset);
@@ -373,8 +525,11 @@ public class Intensify3D implements PlugIn {
 		fp.subtract(offset);
 
 		// 7. Convert back to ShortProcessor (if needed), with clamping
+		//    16-bit input is overwritten in place instead of allocating another plane
 
-		short[] shortPixels = new short[fp.getWidth() * fp.getHeight()];
+		short[] shortPixels = (ip instanceof ShortProcessor)
+				? (short[]) ip.getPixels()
+				: new short[fp.getWidth() * fp.getHeight()];
 
 		float[] floatPixels = (float[]) fp.getPixels();
 
@@ -382,11 +537,7 @@ public class Intensify3D implements PlugIn {
 			shortPixels[i] = (short) Math.min(Math.max(floatPixels[i], 0), 65535); // Clamp
 		}
 
-		ShortProcessor shortIp = new ShortProcessor(fp.getWidth(), fp.getHeight());
-		shortIp.setMinAndMax(origMin, origMax);
-		shortIp.setPixels(shortPixels);
-
-		ip.setPixels(shortIp.getPixels()); // Set the result back to the *original* ImageProcessor
+		ip.setPixels(shortPixels); // Set the result back to the *original* ImageProcessor
 
 	}
 
@@ -402,88 +553,82 @@ public class Intensify3D implements PlugIn {
 		}
 	}
 
-	public void generateNormalizedImages(JProgressBar progressBar) {
-		if (stackFolderField.getText().isEmpty()) {
-			JOptionPane.showMessageDialog(null, "No directory selected!", "Error", JOptionPane.ERROR_MESSAGE);
-			return;
-		}
-
-		File directory = new File(stackFolderField.getText());
-		File noiseDir = new File(stackFolderField.getText(), "noise_images");
+	public void generateNormalizedImages(JobScheduler.Job job, File directory) {
+		File noiseDir = new File(directory, "noise_images");
 		File normDir = new File(directory, "norm_noise");
 
 		if (!noiseDir.exists()) {
-			JOptionPane.showMessageDialog(null, "Noise images not found!", "Error", JOptionPane.ERROR_MESSAGE);
-			return;
+			throw new IllegalStateException("Noise images not found!");
 		}
 		if (!normDir.exists()) normDir.mkdir();
 
 		File[] imageFiles = directory.listFiles((dir, name) -> name.toLowerCase().endsWith(".tif") || name.toLowerCase().endsWith(".tiff"));
 
 		if (imageFiles == null || imageFiles.length == 0) {
-			JOptionPane.showMessageDialog(null, "No TIFF images found!", "Error", JOptionPane.ERROR_MESSAGE);
-			return;
+			throw new IllegalStateException("No TIFF images found!");
 		}
 
-		SwingUtilities.invokeLater(() -> progressBar.setVisible(true));
-
 		int totalFiles = imageFiles.length;
-		progressBar.setValue(0);
-
-		for (int i = 0; i < totalFiles; i++) {
-			File originalImageFile = imageFiles[i];
-			File noiseImageFile = new File(noiseDir, "noise_" + originalImageFile.getName());
+		job.setTotal(totalFiles);
+
+		try {
+			for (int i = 0; i < totalFiles; i++) {
+				job.checkCancelled();                            // Stop between slices once cancelled
+				File originalImageFile = imageFiles[i];
+				File noiseImageFile = new File(noiseDir, "noise_" + originalImageFile.getName());
+
+				if (!noiseImageFile.exists()) {
+					System.err.println("Noise image not found for: " + originalImageFile.getName());
+					job.advance(0);                              // Still counts towards progress and ETA
+					continue;
+				}
 
-			if (!noiseImageFile.exists()) {
-				System.err.println("Noise image not found for: " + originalImageFile.getName());
-				continue;
+				long pixels = normalizeAndSave(originalImageFile, noiseImageFile, normDir);
+				job.advance(pixels);
 			}
-
-			normalizeAndSave(originalImageFile, noiseImageFile, normDir);
-			updateProgress(progressBar, i, totalFiles);
+		} finally {
+			System.out.println(PlanePool.getShared());
+			PlanePool.getShared().trim();                        // Give idle direct memory back after every run
 		}
 
-		SwingUtilities.invokeLater(() -> {
-			progressBar.setValue(100);
-			JOptionPane.showMessageDialog(null, "Normalized images saved in 'norm_noise'!", "Done", JOptionPane.INFORMATION_MESSAGE);
-			progressBar.setVisible(false);
-		});
+		job.setMessage("Normalized images saved in 'norm_noise'!");
 	}
 
-	private void normalizeAndSave(File originalFile, File noiseFile, File normDir) {
+	/** @return number of pixels normalized, or 0 if either image could not be opened */
+	private long normalizeAndSave(File originalFile, File noiseFile, File normDir) {
 		ImagePlus originalImage = IJ.openImage(originalFile.getAbsolutePath());
 		ImagePlus noiseImage = IJ.openImage(noiseFile.getAbsolutePath());
 
 		if (originalImage == null || noiseImage == null) {
 			System.err.println("Error opening images: " + originalFile.getName());
-			return;
+			return 0;
 		}
 
 		ImageProcessor originalIp = originalImage.getProcessor().convertToFloatProcessor();
-		ImageProcessor noiseIp = noiseImage.getProcessor().convertToFloatProcessor();
-
-		// Normalize noise image to max 1
-		double maxNoise = noiseIp.getMax();
-		noiseIp.multiply(1.0 / maxNoise);
+		ImageProcessor noiseIp = noiseImage.getProcessor();
 
 		// *** Get original min/max BEFORE division ***
 		double originalMin = originalIp.getMin();
 		double originalMax = originalIp.getMax();
 
+		// Read the noise image in place instead of converting it to a second float copy
+		int pixelCount = originalIp.getWidth() * originalIp.getHeight();
+		float maxNoise = -Float.MAX_VALUE;
+		for (int i = 0; i < pixelCount; i++) {
+			float value = noiseIp.getf(i);
+			if (value > maxNoise) maxNoise = value;
+		}
+
+		// Normalize noise image to max 1
+		double scale = 1.0 / maxNoise;
 
 		// Divide original by normalized noise (avoid divide-by-zero)
-		int width = originalIp.getWidth();
-		int height = originalIp.getHeight();
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				float origValue = originalIp.getPixelValue(x, y);
-				float backValue = noiseIp.getPixelValue(x, y);
-				if (backValue > 0) {
-					originalIp.putPixelValue(x, y, origValue / backValue);
-				} else {
-					originalIp.putPixelValue(x, y, origValue); // Keep original value
-				}
-			}
+		float[] originalPixels = (float[]) originalIp.getPixels();
+		for (int i = 0; i < pixelCount; i++) {
+			float backValue = (float) (noiseIp.getf(i) * scale);
+			if (backValue > 0) {
+				originalPixels[i] = originalPixels[i] / backValue;
+			} // else keep original value
 		}
 
 		// Save normalized image
@@ -496,6 +641,7 @@ public class Intensify3D implements PlugIn {
 
 		ImagePlus outputImage = new ImagePlus(outputName, shortIp);
 		IJ.saveAsTiff(outputImage, outputFile.getAbsolutePath());
+		return pixelCount;
 	}
 
 
@@ -0,0 +1,313 @@
+package com.mycompany.imagej;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the plugin's long operations in the background, one job at a time per
+ * image stack.
+ *
+ * Jobs submitted for the same stack directory are queued behind each other so
+ * that, e.g., normalization never reads {@code noise_images} while they are
+ * still being written. The plugin uses a single {@link #getShared() shared}
+ * scheduler, so this also holds across several open plugin windows. Jobs
+ * report progress by updating plain fields; a Swing timer samples the active
+ * jobs at a fixed interval and hands each to the {@link Listener} it was
+ * submitted with on the EDT, so a fast loop never floods the event queue.
+ * Cancellation is cooperative: workers call {@link Job#checkCancelled()}
+ * between slices and tiles. A stack's worker thread is stopped once it has no
+ * jobs left, so stacks processed earlier do not keep threads alive.
+ */
+public class JobScheduler {
+
+	public enum State { QUEUED, RUNNING, DONE, CANCELLED, FAILED }
+
+	/** Work executed by a job on its stack's worker thread. */
+	public interface Task {
+		void run(Job job) throws Exception;
+	}
+
+	/**
+	 * Receives coalesced job updates. Always called on the EDT with the state
+	 * sampled for this update, and exactly once with the job's final state.
+	 * Implementations must return quickly, since they run inside the timer tick.
+	 */
+	public interface Listener {
+		void jobUpdated(Job job, State state);
+	}
+
+	private static final int MAX_HISTORY = 50;
+	private static final int DEFAULT_INTERVAL_MS = 250; // How often job progress is pushed to the GUI
+
+	private static JobScheduler shared;
+
+	private final Timer timer;
+	private final Map<String, ExecutorService> executors = new HashMap<>();
+	private final List<Job> active = new ArrayList<>();
+	private final List<Job> history = new ArrayList<>();
+
+	public JobScheduler(int updateIntervalMillis) {
+		this.timer = new Timer(updateIntervalMillis, e -> publish());
+	}
+
+	/** Returns the scheduler shared by all plugin windows. */
+	public static synchronized JobScheduler getShared() {
+		if (shared == null) {
+			shared = new JobScheduler(DEFAULT_INTERVAL_MS);
+		}
+		return shared;
+	}
+
+	/**
+	 * Queues a task for the given stack. It starts once every job submitted
+	 * earlier for the same stack has finished, whichever window submitted it.
+	 * Updates for this job go to {@code listener}.
+	 */
+	public synchronized Job submit(String name, File stackDir, Listener listener, Task task) {
+		String stackKey = stackDir.getAbsolutePath();
+		Job job = new Job(name, stackKey, listener);
+		active.add(job);
+
+		ExecutorService executor = executors.get(stackKey);
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "Intensify3D-" + stackDir.getName());
+				thread.setDaemon(true);
+				return thread;
+			});
+			executors.put(stackKey, executor);
+		}
+		executor.execute(() -> execute(job, task));
+
+		SwingUtilities.invokeLater(timer::start);
+		return job;
+	}
+
+	/** Requests cancellation of the running and queued jobs of a stack. */
+	public synchronized void cancel(File stackDir) {
+		String stackKey = stackDir.getAbsolutePath();
+		for (Job job : active) {
+			if (job.stackKey.equals(stackKey)) job.cancel();
+		}
+	}
+
+	/** Requests cancellation of every job that reports to {@code listener}, e.g. when its window closes. */
+	public synchronized void cancel(Listener listener) {
+		for (Job job : active) {
+			if (job.listener == listener) job.cancel();
+		}
+	}
+
+	/** Returns the finished jobs, oldest first. */
+	public synchronized List<Job> getHistory() {
+		return new ArrayList<>(history);
+	}
+
+	private void execute(Job job, Task task) {
+		if (job.isCancelled()) {
+			job.finish(State.CANCELLED, null);
+			return;
+		}
+		job.start();
+		try {
+			task.run(job);
+			job.finish(job.isCancelled() ? State.CANCELLED : State.DONE, null);
+		} catch (CancellationException e) {
+			job.finish(State.CANCELLED, null);
+		} catch (Throwable t) {
+			t.printStackTrace();
+			job.finish(State.FAILED, t);
+		}
+	}
+
+	/** Timer callback on the EDT: reports every active job and retires finished ones. */
+	private void publish() {
+		List<Job> snapshot;
+		synchronized (this) {
+			snapshot = new ArrayList<>(active);
+		}
+
+		// Sample each state once, so a job is retired exactly when its final state was reported
+		List<Job> finished = new ArrayList<>();
+		for (Job job : snapshot) {
+			State state = job.getState();
+			if (state == State.QUEUED) continue;
+			if (isFinal(state)) finished.add(job);
+			job.listener.jobUpdated(job, state);
+		}
+
+		synchronized (this) {
+			for (Job job : finished) {
+				active.remove(job);
+				history.add(job);
+				System.out.println(job);
+				if (history.size() > MAX_HISTORY) history.remove(0);
+			}
+			dropIdleExecutors();
+			if (active.isEmpty()) timer.stop();
+		}
+	}
+
+	/** Stops the worker thread of every stack that has no queued or running job left. */
+	private void dropIdleExecutors() {
+		Iterator<Map.Entry<String, ExecutorService>> it = executors.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, ExecutorService> entry = it.next();
+			boolean busy = false;
+			for (Job job : active) {
+				if (job.stackKey.equals(entry.getKey())) busy = true;
+			}
+			if (!busy) {
+				entry.getValue().shutdown();
+				it.remove();
+			}
+		}
+	}
+
+	private static boolean isFinal(State state) {
+		return state == State.DONE || state == State.CANCELLED || state == State.FAILED;
+	}
+
+	/** A unit of background work together with its progress and timing. */
+	public static class Job {
+
+		private final String name;
+		private final String stackKey;
+		private final Listener listener;
+		private final long submittedAt = System.currentTimeMillis();
+
+		private volatile State state = State.QUEUED;
+		private volatile boolean cancelled;
+		private volatile int total;
+		private volatile int done;
+		private volatile long pixels;
+		private volatile long startedAt;
+		private volatile long finishedAt;
+		private volatile String message;
+		private volatile Throwable error;
+
+		Job(String name, String stackKey, Listener listener) {
+			this.name = name;
+			this.stackKey = stackKey;
+			this.listener = listener;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public boolean isFinished() {
+			return isFinal(state);
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/** Throws {@link CancellationException} once the job has been cancelled. */
+		public void checkCancelled() {
+			if (cancelled) throw new CancellationException(name + " cancelled");
+		}
+
+		/** Sets the number of slices the job will process. */
+		public void setTotal(int total) {
+			this.total = total;
+		}
+
+		/** Marks one more slice of {@code slicePixels} pixels as processed; skipped slices pass 0. */
+		public void advance(long slicePixels) {
+			pixels += slicePixels;
+			done++;
+		}
+
+		public int getDone() {
+			return done;
+		}
+
+		public int getTotal() {
+			return total;
+		}
+
+		/** Message to show the user when the job completes. */
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public Throwable getError() {
+			return error;
+		}
+
+		/** Fraction of slices processed, between 0 and 1. */
+		public double getProgress() {
+			return total > 0 ? Math.min(1.0, done / (double) total) : 0;
+		}
+
+		public long getElapsedMillis() {
+			if (startedAt == 0) return 0;
+			long end = finishedAt != 0 ? finishedAt : System.currentTimeMillis();
+			return end - startedAt;
+		}
+
+		/** Estimated time until completion, or -1 before the first slice is done. */
+		public long getEtaMillis() {
+			int d = done;
+			if (d == 0 || total == 0) return -1;
+			return getElapsedMillis() * (total - d) / d;
+		}
+
+		public double getSlicesPerSecond() {
+			long elapsed = getElapsedMillis();
+			return elapsed > 0 ? done * 1000.0 / elapsed : 0;
+		}
+
+		public double getMegapixelsPerSecond() {
+			long elapsed = getElapsedMillis();
+			return elapsed > 0 ? pixels / 1e6 * 1000.0 / elapsed : 0;
+		}
+
+		public long getQueuedMillis() {
+			return startedAt == 0 ? 0 : startedAt - submittedAt;
+		}
+
+		void start() {
+			startedAt = System.currentTimeMillis();
+			state = State.RUNNING;
+		}
+
+		void finish(State finalState, Throwable t) {
+			if (startedAt == 0) startedAt = System.currentTimeMillis();
+			error = t;
+			finishedAt = System.currentTimeMillis();
+			state = finalState;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s | Stack: %s | %s | Slices: %d/%d | Queued: %.1f s | Elapsed: %.1f s | %.2f slices/s | %.2f MP/s",
+					name, stackKey, state, done, total,
+					getQueuedMillis() / 1000.0, getElapsedMillis() / 1000.0,
+					getSlicesPerSecond(), getMegapixelsPerSecond());
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.mycompany.imagej;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bounded pool of off-heap float planes used as scratch space while filtering
+ * slices, e.g. the mirrored, padded copy the Savitzky-Golay filter convolves.
+ *
+ * Planes are backed by direct buffers so that large intermediate images do not
+ * count against the Java heap. The total size of all pooled planes is capped by
+ * a byte budget; a borrower that would exceed it waits until another worker
+ * returns a plane. A single plane larger than the whole budget, or larger than
+ * a direct buffer can address, is served from the heap instead and is never
+ * pooled. Idle planes are kept until {@link #trim()} is called, which the
+ * plugin does at the end of every noise or normalization run.
+ */
+public class PlanePool {
+
+	/** System property used to configure the budget of the shared pool, in bytes; 0 disables pooling. */
+	public static final String BUDGET_PROPERTY = "intensify3d.planePool.bytes";
+
+	private static PlanePool shared;
+
+	private final long budgetBytes;
+	private final List<FloatBuffer> free = new ArrayList<>();
+
+	private long allocatedBytes;
+	private long peakBytes;
+	private long hits;
+	private long misses;
+	private long overflows;
+
+	/** Creates a pool; a budget of 0 or less disables pooling and every plane comes from the heap. */
+	public PlanePool(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+	}
+
+	/**
+	 * Returns the pool shared by the plugin. Its budget is read from
+	 * {@value #BUDGET_PROPERTY} and defaults to a quarter of the maximum heap.
+	 */
+	public static synchronized PlanePool getShared() {
+		if (shared == null) {
+			long budget = Long.getLong(BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / 4);
+			shared = new PlanePool(budget);
+		}
+		return shared;
+	}
+
+	/**
+	 * Borrows a plane holding at least {@code length} floats. The returned
+	 * buffer is positioned at 0 with its limit set to {@code length}; its
+	 * contents are undefined. Every borrowed plane must be handed back with
+	 * {@link #release(FloatBuffer)}.
+	 */
+	public synchronized FloatBuffer borrow(int length) {
+		long bytes = length * 4L;
+		if (!isEnabled() || bytes > budgetBytes || bytes > Integer.MAX_VALUE) {
+			overflows++;
+			return FloatBuffer.allocate(length);
+		}
+
+		while (true) {
+			FloatBuffer plane = takeFree(length);
+			if (plane != null) {
+				hits++;
+				return prepare(plane, length);
+			}
+
+			// Drop idle planes of other sizes until the new one fits
+			Iterator<FloatBuffer> it = free.iterator();
+			while (allocatedBytes + bytes > budgetBytes && it.hasNext()) {
+				allocatedBytes -= it.next().capacity() * 4L;
+				it.remove();
+			}
+
+			if (allocatedBytes + bytes <= budgetBytes) {
+				// Only account for the plane once the allocation has succeeded
+				plane = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+				misses++;
+				allocatedBytes += bytes;
+				peakBytes = Math.max(peakBytes, allocatedBytes);
+				return prepare(plane, length);
+			}
+
+			// Everything left is on loan; wait for a worker to give a plane back
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for a free plane.", e);
+			}
+		}
+	}
+
+	/** Returns a plane obtained from {@link #borrow(int)} to the pool. */
+	public synchronized void release(FloatBuffer plane) {
+		if (plane == null || !plane.isDirect()) return;
+		free.add(plane);
+		notifyAll();
+	}
+
+	/** Drops all idle planes so their memory can be reclaimed. */
+	public synchronized void trim() {
+		for (FloatBuffer plane : free) {
+			allocatedBytes -= plane.capacity() * 4L;
+		}
+		free.clear();
+	}
+
+	public boolean isEnabled() {
+		return budgetBytes > 0;
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public synchronized long getPeakBytes() {
+		return peakBytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getOverflows() {
+		return overflows;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "PlanePool | Hits: " + hits +
+				" | Misses: " + misses +
+				" | Overflows: " + overflows +
+				" | Allocated: " + (allocatedBytes >> 20) + " MB" +
+				" | Peak: " + (peakBytes >> 20) + " MB" +
+				" | Budget: " + (budgetBytes >> 20) + " MB";
+	}
+
+	/** Picks the smallest idle plane that can hold {@code length} floats. */
+	private FloatBuffer takeFree(int length) {
+		int best = -1;
+		for (int i = 0; i < free.size(); i++) {
+			int capacity = free.get(i).capacity();
+			if (capacity >= length && (best < 0 || capacity < free.get(best).capacity())) {
+				best = i;
+			}
+		}
+		return best < 0 ? null : free.remove(best);
+	}
+
+	private static FloatBuffer prepare(FloatBuffer plane, int length) {
+		plane.clear();
+		plane.limit(length);
+		return plane;
+	}
+}
@@ -3,9 +3,25 @@ package com.mycompany.imagej;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
+import java.nio.FloatBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
 public class SavitzkyGolay2D {
 
+    /** Number of output rows convolved between two cancellation checks. */
+    private static final int TILE_ROWS = 64;
+
     public static void applyFilter(ImageProcessor ip, int windowSize) {
+        applyFilter(ip, windowSize, null);
+    }
+
+    /**
+     * Filters {@code ip} in place. When {@code cancelled} is given it is polled
+     * between tiles of rows, and a {@link CancellationException} aborts the
+     * filter as soon as it reports true.
+     */
+    public static void applyFilter(ImageProcessor ip, int windowSize, BooleanSupplier cancelled) {
         if (windowSize % 2 == 0) {
             throw new IllegalArgumentException("Window size must be odd.");
         }
@@ -17,7 +33,14 @@ public class SavitzkyGolay2D {
         // Generate the true 2D Savitzky-Golay kernel (order 2 polynomial)
         float[][] sgKernel = generateSavitzkyGolayKernel(windowSize);
 
-        FloatProcessor fp = ip.convertToFloatProcessor();
+        // Work on the caller's pixels directly when they are already float
+        FloatProcessor fp;
+        if (ip instanceof FloatProcessor) {
+            fp = (FloatProcessor) ip;
+            fp.resetMinAndMax();
+        } else {
+            fp = ip.convertToFloatProcessor();
+        }
 
         // Normalize before filtering
         double origMin = fp.getMin();
@@ -29,13 +52,15 @@ public class SavitzkyGolay2D {
         fp.subtract(origMin);
         fp.multiply(1.0 / (origMax - origMin + offset));
 
-        FloatProcessor paddedFp = padImage(fp, halfWindow);
-        float[][] filteredPixels = convolve(paddedFp, sgKernel, windowSize);
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                fp.putPixelValue(x, y, filteredPixels[y][x]);
-            }
+        int paddedWidth = width + 2 * halfWindow;
+        int paddedHeight = height + 2 * halfWindow;
+        PlanePool pool = PlanePool.getShared();
+        FloatBuffer padded = pool.borrow(paddedWidth * paddedHeight);
+        try {
+            padImage(fp, halfWindow, padded);
+            convolve(padded, paddedWidth, sgKernel, windowSize, (float[]) fp.getPixels(), width, height, cancelled);
+        } finally {
+            pool.release(padded);
         }
 
         // Restore intensity scale
@@ -141,76 +166,57 @@ public class SavitzkyGolay2D {
         return x;
     }
 
-    private static float[][] convolve(FloatProcessor ip, float[][] kernel, int windowSize) {
-        int width = ip.getWidth();
-        int height = ip.getHeight();
-        int halfWindow = windowSize / 2;
-        float[][] result = new float[height - 2 * halfWindow][width - 2 * halfWindow];
-
-        for (int y = halfWindow; y < height - halfWindow; y++) {
-            for (int x = halfWindow; x < width - halfWindow; x++) {
+    /**
+     * Convolves the padded plane with the kernel and writes the result straight
+     * into {@code out}, which holds the unpadded image.
+     */
+    private static void convolve(FloatBuffer padded, int paddedWidth, float[][] kernel, int windowSize,
+                                 float[] out, int width, int height, BooleanSupplier cancelled) {
+        for (int y = 0; y < height; y++) {
+            if (cancelled != null && y % TILE_ROWS == 0 && cancelled.getAsBoolean()) {
+                throw new CancellationException("Savitzky-Golay filter cancelled");
+            }
+            for (int x = 0; x < width; x++) {
                 float sum = 0;
-                for (int ky = -halfWindow; ky <= halfWindow; ky++) {
-                    for (int kx = -halfWindow; kx <= halfWindow; kx++) {
-                        sum += ip.getPixelValue(x + kx, y + ky) * kernel[ky + halfWindow][kx + halfWindow];
+                for (int ky = 0; ky < windowSize; ky++) {
+                    int row = (y + ky) * paddedWidth + x;
+                    for (int kx = 0; kx < windowSize; kx++) {
+                        sum += padded.get(row + kx) * kernel[ky][kx];
                     }
                 }
-                result[y - halfWindow][x - halfWindow] = sum;
+                out[y * width + x] = sum;
             }
         }
-        return result;
     }
 
-    private static FloatProcessor padImage(FloatProcessor ip, int pad) {
+    /**
+     * Fills {@code padded} with the image surrounded by a mirrored border of
+     * {@code pad} pixels on every side.
+     */
+    private static void padImage(FloatProcessor ip, int pad, FloatBuffer padded) {
         int w = ip.getWidth();
         int h = ip.getHeight();
         int newW = w + 2 * pad;
         int newH = h + 2 * pad;
 
-        FloatProcessor paddedIp = new FloatProcessor(newW, newH);
-
-        // 1️⃣ Copy Original Image into the Center of the Padded Image
-        paddedIp.insert(ip, pad, pad);
-
-        // 2️⃣ Mirror Top and Bottom Edges
-        for (int x = pad; x < w + pad; x++) {
-            for (int i = 0; i < pad; i++) {
-                // Mirror Top Edge
-                paddedIp.putPixelValue(x, i, ip.getPixelValue(x - pad, pad - i));
-
-                // Mirror Bottom Edge
-                paddedIp.putPixelValue(x, newH - 1 - i, ip.getPixelValue(x - pad, h - 1 - (pad - i)));
-            }
+        // Source column/row for every padded column/row; edges and corners mirror about the border
+        int[] srcX = new int[newW];
+        for (int x = 0; x < newW; x++) {
+            srcX[x] = mirror(x, w, pad, newW);
         }
 
-        // 3️⃣ Mirror Left and Right Edges
-        for (int y = pad; y < h + pad; y++) {
-            for (int i = 0; i < pad; i++) {
-                // Mirror Left Edge
-                paddedIp.putPixelValue(i, y, ip.getPixelValue(pad - i, y - pad));
-
-                // Mirror Right Edge
-                paddedIp.putPixelValue(newW - 1 - i, y, ip.getPixelValue(w - 1 - (pad - i), y - pad));
-            }
-        }
-
-        // 4️⃣ Correctly Handle Corner Mirroring
-        for (int y = 0; y < pad; y++) {
-            for (int x = 0; x < pad; x++) {
-                // Top-Left Corner
-                paddedIp.putPixelValue(x, y, ip.getPixelValue(pad - x, pad - y));
-
-                // Top-Right Corner
-                paddedIp.putPixelValue(newW - 1 - x, y, ip.getPixelValue(w - 1 - (pad - x), pad - y));
-
-                // Bottom-Left Corner
-                paddedIp.putPixelValue(x, newH - 1 - y, ip.getPixelValue(pad - x, h - 1 - (pad - y)));
-
-                // Bottom-Right Corner
-                paddedIp.putPixelValue(newW - 1 - x, newH - 1 - y, ip.getPixelValue(w - 1 - (pad - x), h - 1 - (pad - y)));
+        for (int y = 0; y < newH; y++) {
+            int sy = mirror(y, h, pad, newH);
+            int row = y * newW;
+            for (int x = 0; x < newW; x++) {
+                padded.put(row + x, ip.getPixelValue(srcX[x], sy));
             }
         }
+    }
 
-        return paddedIp;
+    private static int mirror(int i, int size, int pad, int paddedSize) {
+        if (i < pad) return pad - i;
+        if (i >= size + pad) return size - 1 - (pad - (paddedSize - 1 - i));
+        return i - pad;
     }
-}
\ No newline at end of file
+}